@@ -1,7 +1,12 @@
 package dev.lydech.dispatch;
 
+import dev.lydech.dispatch.client.StockServiceRateLimiter;
 import dev.lydech.dispatch.exception.NotRetryableException;
+import dev.lydech.dispatch.exception.RateLimitedException;
 import dev.lydech.dispatch.exception.RetryableException;
+import dev.lydech.dispatch.exception.StaleOrderForwardException;
+import dev.lydech.dispatch.filter.OrderCreatedFilter;
+import dev.lydech.dispatch.filter.OrderCreatedFilteringDeserializer;
 import dev.lydech.dispatch.message.OrderCreated;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
@@ -13,11 +18,13 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
 import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
 import org.springframework.kafka.listener.DefaultErrorHandler;
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.util.backoff.FixedBackOff;
 import org.springframework.web.client.RestTemplate;
 
@@ -31,6 +38,7 @@ import java.util.Map;
  */
 @ComponentScan(basePackages = "dev.lydech")
 @Configuration
+@EnableScheduling //drives the outbox drainer
 public class DispatchConfiguration {
 
     private static String TRUSTED_PACKAGES = "dev.lydech.dispatch.message"; //restrict deserialization to only our message classes
@@ -43,38 +51,75 @@ public class DispatchConfiguration {
      */
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory(ConsumerFactory<String, Object> consumerFactory,
-                                                                                                 KafkaTemplate<String, Object> kafkaTemplate) {
+                                                                                                 KafkaTemplate<String, Object> kafkaTemplate,
+                                                                                                 StockServiceRateLimiter stockServiceRateLimiter,
+                                                                                                 @Value("${dispatch.staleOrderForwardBackOffMs:1000}") long staleOrderForwardBackOffMs) {
         ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory);
 
-        // Retry logic
-        DefaultErrorHandler errorHandler = new DefaultErrorHandler(new DeadLetterPublishingRecoverer(
-                kafkaTemplate
-        ), new FixedBackOff(100L, 3L)); //retry 3 times with 100ms interval
+        factory.setCommonErrorHandler(errorHandler(new DeadLetterPublishingRecoverer(kafkaTemplate), stockServiceRateLimiter.getBackOffMs(), staleOrderForwardBackOffMs));
+
+        // drop records the filtering deserializer discarded before they reach a listener
+        factory.setRecordFilterStrategy(record -> record.headers().lastHeader(OrderCreatedFilteringDeserializer.FILTERED_HEADER) != null);
+
+        return factory;
+    }
+
+    /**
+     * Retry logic, a record held back by our own rate limiter is backpressure rather than a failure so it is retried
+     * one permit interval later for as long as it takes and never reaches the recoverer.
+     * Same for a stale order the broker has not taken yet, there is nothing wrong with the order itself.
+     *
+     * @param recoverer
+     * @param rateLimitBackOffMs
+     * @param staleOrderForwardBackOffMs
+     * @return
+     */
+    static DefaultErrorHandler errorHandler(ConsumerRecordRecoverer recoverer, long rateLimitBackOffMs, long staleOrderForwardBackOffMs) {
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, new FixedBackOff(100L, 3L)); //retry 3 times with 100ms interval
         errorHandler.addRetryableExceptions(RetryableException.class);
         errorHandler.addNotRetryableExceptions(NotRetryableException.class);
-        factory.setCommonErrorHandler(errorHandler);
+        errorHandler.setBackOffFunction((record, exception) -> {
+            if (hasCause(exception, RateLimitedException.class)) {
+                return new FixedBackOff(rateLimitBackOffMs, FixedBackOff.UNLIMITED_ATTEMPTS);
+            }
+            if (hasCause(exception, StaleOrderForwardException.class)) {
+                return new FixedBackOff(staleOrderForwardBackOffMs, FixedBackOff.UNLIMITED_ATTEMPTS);
+            }
+            return null;
+        });
+        return errorHandler;
+    }
 
-        return factory;
+    private static boolean hasCause(Throwable exception, Class<? extends Throwable> type) {
+        // the listener exception arrives wrapped by the container
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * avoids doing all this stuff in applicaiton.properties
+     * deserializers are passed as instances so order.created records can be filtered before the json is bound
      *
      * @param bootstrapServers
+     * @param orderCreatedFilter
      * @return
      */
     @Bean
     public ConsumerFactory<String, Object> consumerFactory(
-            @Value("${kafka.bootstrap-servers}") String bootstrapServers
+            @Value("${kafka.bootstrap-servers}") String bootstrapServers,
+            OrderCreatedFilter orderCreatedFilter
     ) {
         return new DefaultKafkaConsumerFactory<>(
                 Map.of(
                         ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
-                        ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class,
-                        ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class,
-                        JsonDeserializer.TRUSTED_PACKAGES, TRUSTED_PACKAGES,
-                        ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class)
+                        JsonDeserializer.TRUSTED_PACKAGES, TRUSTED_PACKAGES),
+                new StringDeserializer(),
+                new ErrorHandlingDeserializer<>(new OrderCreatedFilteringDeserializer(new JsonDeserializer<>(), orderCreatedFilter))
         );
 
     }
@@ -16,15 +16,19 @@ public class StockServiceClient {
 
     private final RestTemplate restTemplate;
 
+    private final StockServiceRateLimiter rateLimiter;
+
     private final String stockServiceEndpoint;
 
-    public StockServiceClient(@Autowired RestTemplate restTemplate, @Value("${dispatch.stockServiceEndpoint}") String stockServiceEndpoint) {
+    public StockServiceClient(@Autowired RestTemplate restTemplate, @Autowired StockServiceRateLimiter rateLimiter, @Value("${dispatch.stockServiceEndpoint}") String stockServiceEndpoint) {
         this.restTemplate = restTemplate;
+        this.rateLimiter = rateLimiter;
         this.stockServiceEndpoint = stockServiceEndpoint;
     }
 
 
     public String checkAvailability(String item) {
+        rateLimiter.acquire(); //stay inside the stock service quota rather than getting throttled with 5xx
         try {
             ResponseEntity<String> response = restTemplate.getForEntity(stockServiceEndpoint + "?item=" + item, String.class);
             if (response.getStatusCodeValue() != 200) {
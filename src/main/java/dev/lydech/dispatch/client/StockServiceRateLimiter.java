@@ -0,0 +1,92 @@
+package dev.lydech.dispatch.client;
+
+import dev.lydech.dispatch.exception.RateLimitedException;
+import dev.lydech.dispatch.exception.RetryableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by every consumer thread so the instance stays inside the stock service quota.
+ * Lock-free: the bucket is a single "theoretical arrival time" that callers advance with a CAS (GCRA),
+ * each permit moves it on by 1/rate and up to burst permits can be taken ahead of time.
+ * Callers wait for their permit for at most the configured timeout, otherwise a RateLimitedException is thrown
+ * and the error handler seeks the record back and retries it without counting towards the dead letter topic.
+ */
+@Slf4j
+@Component
+public class StockServiceRateLimiter {
+
+    private final long intervalNanos;
+
+    private final long burstNanos;
+
+    private final long timeoutNanos;
+
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(Long.MIN_VALUE);
+
+    private final Timer waitTimer;
+
+    private final Counter rejectedCounter;
+
+    public StockServiceRateLimiter(MeterRegistry meterRegistry,
+                                   @Value("${dispatch.stockServiceRateLimit.permitsPerSecond:0}") double permitsPerSecond,
+                                   @Value("${dispatch.stockServiceRateLimit.burst:1}") int burst,
+                                   @Value("${dispatch.stockServiceRateLimit.timeoutMs:0}") long timeoutMs) {
+        // a rate of zero or less switches the limiter off
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0L;
+        this.burstNanos = intervalNanos * Math.max(burst, 1);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.waitTimer = Timer.builder("stock.service.ratelimit.wait")
+                .description("Time spent waiting for a stock service permit")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("stock.service.ratelimit.rejected")
+                .description("Stock service calls rejected because no permit was free within the timeout")
+                .register(meterRegistry);
+    }
+
+    /**
+     * How long a rejected record should wait before it is retried, one permit interval
+     */
+    public long getBackOffMs() {
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(intervalNanos), 1L);
+    }
+
+    /**
+     * Blocks until a permit is free, or throws a RateLimitedException if that would take longer than the timeout
+     */
+    public void acquire() {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long waitNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrivalTime.get();
+            long next = Math.max(current, now) + intervalNanos;
+            waitNanos = next - burstNanos - now;
+            if (waitNanos > timeoutNanos) {
+                rejectedCounter.increment();
+                throw new RateLimitedException("Stock service rate limit exceeded, no permit within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+            }
+            if (theoreticalArrivalTime.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RetryableException(e);
+            }
+        }
+        waitTimer.record(Math.max(waitNanos, 0L), TimeUnit.NANOSECONDS);
+    }
+}
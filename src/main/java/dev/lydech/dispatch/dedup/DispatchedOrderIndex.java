@@ -0,0 +1,133 @@
+package dev.lydech.dispatch.dedup;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Exact, bounded set of the orderIds this service has recently dispatched, used to suppress redelivered orders
+ * before the stock check.
+ * UUIDs are stored as two longs in open addressing tables so there is no per entry object, 16 bytes a slot.
+ * Memory is capped with two generations: once the current one holds capacity ids it becomes the previous one and the
+ * oldest generation is cleared and reused, so lookups cover between capacity and 2 * capacity of the latest ids.
+ */
+@Component
+public class DispatchedOrderIndex {
+
+    private final int capacity;
+
+    private UuidSet current;
+
+    private UuidSet previous;
+
+    public DispatchedOrderIndex(@Value("${dispatch.dedup.capacity:100000}") int capacity) {
+        this.capacity = capacity;
+        this.current = new UuidSet(capacity);
+        this.previous = new UuidSet(capacity);
+    }
+
+    public synchronized boolean contains(UUID orderId) {
+        if (orderId == null) {
+            return false;
+        }
+        long hi = orderId.getMostSignificantBits();
+        long lo = orderId.getLeastSignificantBits();
+        return current.contains(hi, lo) || previous.contains(hi, lo);
+    }
+
+    public synchronized void add(UUID orderId) {
+        if (orderId == null || contains(orderId)) {
+            return;
+        }
+        if (current.size() >= capacity) {
+            UuidSet oldest = previous;
+            oldest.clear();
+            previous = current;
+            current = oldest;
+        }
+        current.add(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+    }
+
+    /**
+     * Linear probing table with room for at least twice its capacity so probes stay short.
+     * The nil UUID is the empty slot marker and is tracked on its own.
+     */
+    static class UuidSet {
+
+        private final long[] his;
+
+        private final long[] los;
+
+        private final int mask;
+
+        private int size;
+
+        private boolean containsNil;
+
+        UuidSet(int capacity) {
+            int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+            this.his = new long[slots];
+            this.los = new long[slots];
+            this.mask = slots - 1;
+        }
+
+        boolean contains(long hi, long lo) {
+            if (hi == 0 && lo == 0) {
+                return containsNil;
+            }
+            for (int slot = slot(hi, lo); ; slot = (slot + 1) & mask) {
+                if (his[slot] == hi && los[slot] == lo) {
+                    return true;
+                }
+                if (his[slot] == 0 && los[slot] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long hi, long lo) {
+            if (hi == 0 && lo == 0) {
+                if (!containsNil) {
+                    containsNil = true;
+                    size++;
+                }
+                return;
+            }
+            for (int slot = slot(hi, lo); ; slot = (slot + 1) & mask) {
+                if (his[slot] == hi && los[slot] == lo) {
+                    return;
+                }
+                if (his[slot] == 0 && los[slot] == 0) {
+                    his[slot] = hi;
+                    los[slot] = lo;
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(his, 0L);
+            Arrays.fill(los, 0L);
+            size = 0;
+            containsNil = false;
+        }
+
+        private int slot(long hi, long lo) {
+            // murmur3 finalizer so version/variant bits don't cluster the slots
+            long h = hi ^ Long.rotateLeft(lo, 32);
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return (int) h & mask;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package dev.lydech.dispatch.dedup;
+
+import dev.lydech.dispatch.message.OrderDispatched;
+import dev.lydech.dispatch.outbox.OrderDispatchedOutbox;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Rebuilds the DispatchedOrderIndex on startup, before the listener containers start, so redeliveries straight after
+ * a restart or rebalance are still suppressed. Orders still waiting in the outbox are seeded first as they won't be on
+ * the topic yet, then the tail of order.dispatched is read.
+ * Only the last capacity records across the partitions are read, and a broker that can't be reached in time just
+ * leaves the index empty rather than holding up startup.
+ * The same consumer then keeps tailing the topic on a background thread so the index also holds what other instances
+ * dispatch, otherwise a partition moving here in a rebalance would bring redeliveries of orders the previous owner
+ * already dispatched. Partitions are assigned by hand, there is no consumer group and nothing is committed.
+ */
+@Slf4j
+@Component
+public class DispatchedOrderIndexLoader implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    private static final long RETRY_INTERVAL_MS = 1000L;
+
+    private final ConsumerFactory<String, Object> consumerFactory;
+
+    private final OrderDispatchedOutbox outbox;
+
+    private final DispatchedOrderIndex index;
+
+    private final int capacity;
+
+    private final Duration timeout;
+
+    private volatile boolean running;
+
+    private Consumer<String, Object> consumer;
+
+    private Thread tailer;
+
+    private boolean assigned;
+
+    public DispatchedOrderIndexLoader(ConsumerFactory<String, Object> consumerFactory, OrderDispatchedOutbox outbox, DispatchedOrderIndex index,
+                                      @Value("${dispatch.dedup.capacity:100000}") int capacity,
+                                      @Value("${dispatch.dedup.rebuildTimeoutMs:10000}") long rebuildTimeoutMs) {
+        this.consumerFactory = consumerFactory;
+        this.outbox = outbox;
+        this.index = index;
+        this.capacity = capacity;
+        this.timeout = Duration.ofMillis(rebuildTimeoutMs);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        List<UUID> pendingOrderIds = outbox.pendingOrderIds();
+        pendingOrderIds.forEach(index::add);
+        log.info("Seeded dispatched order index with {} orderIds pending in the outbox", pendingOrderIds.size());
+
+        consumer = consumerFactory.createConsumer();
+        rebuild();
+
+        running = true;
+        tailer = new Thread(this::tail, "dispatched-order-index-tailer");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (tailer == null) {
+            return;
+        }
+        consumer.wakeup();
+        tailer.join(timeout.toMillis());
+    }
+
+    private void rebuild() {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        int loaded = 0;
+        try {
+            Map<TopicPartition, Long> endOffsets = assign();
+            if (endOffsets.isEmpty()) {
+                return;
+            }
+            while (System.currentTimeMillis() < deadline
+                    && endOffsets.entrySet().stream().anyMatch(end -> consumer.position(end.getKey(), timeout) < end.getValue())) {
+                loaded += poll();
+            }
+            log.info("Rebuilt dispatched order index with {} orderIds from topic: {}", loaded, OrderDispatchedOutbox.ORDER_DISPATCHED_TOPIC);
+        } catch (Exception e) {
+            log.warn("Unable to rebuild dispatched order index from topic: {}, starting with {} orderIds: {}",
+                    OrderDispatchedOutbox.ORDER_DISPATCHED_TOPIC, loaded, e.getMessage());
+        }
+    }
+
+    /**
+     * Carries on from wherever the rebuild got to, or assigns the partitions first if it never reached the broker
+     */
+    private void tail() {
+        try {
+            while (running) {
+                try {
+                    if (!assigned) {
+                        assign();
+                    }
+                    if (assigned) {
+                        poll();
+                    } else {
+                        Thread.sleep(RETRY_INTERVAL_MS);
+                    }
+                } catch (WakeupException e) {
+                    // shutting down
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.warn("Unable to tail topic: {} for the dispatched order index, will retry: {}",
+                            OrderDispatchedOutbox.ORDER_DISPATCHED_TOPIC, e.getMessage());
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Assigns every partition of the topic positioned at its last capacity records, returns the end offsets
+     */
+    private Map<TopicPartition, Long> assign() {
+        List<PartitionInfo> partitionInfos = consumer.partitionsFor(OrderDispatchedOutbox.ORDER_DISPATCHED_TOPIC, timeout);
+        if (partitionInfos == null || partitionInfos.isEmpty()) {
+            return Map.of();
+        }
+        List<TopicPartition> partitions = partitionInfos.stream()
+                .map(info -> new TopicPartition(info.topic(), info.partition()))
+                .toList();
+        consumer.assign(partitions);
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions, timeout);
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions, timeout);
+        long perPartition = Math.max(capacity / partitions.size(), 1);
+        for (TopicPartition partition : partitions) {
+            consumer.seek(partition, Math.max(beginningOffsets.get(partition), endOffsets.get(partition) - perPartition));
+        }
+        assigned = true;
+        return endOffsets;
+    }
+
+    private int poll() {
+        int added = 0;
+        for (ConsumerRecord<String, Object> record : consumer.poll(POLL_TIMEOUT)) {
+            // records that failed to deserialize come through as null and are just skipped, they never dead letter
+            if (record.value() instanceof OrderDispatched orderDispatched) {
+                index.add(orderDispatched.getOrderId());
+                added++;
+            }
+        }
+        return added;
+    }
+}
@@ -0,0 +1,12 @@
+package dev.lydech.dispatch.exception;
+
+/**
+ * Thrown when this instance holds a call back to stay inside a quota, the record is fine and should be retried
+ * until a permit is free rather than counted towards the dead letter topic
+ */
+public class RateLimitedException extends RetryableException {
+
+    public RateLimitedException(String message) {
+        super(message);
+    }
+}
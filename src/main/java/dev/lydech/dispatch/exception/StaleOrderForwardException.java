@@ -0,0 +1,12 @@
+package dev.lydech.dispatch.exception;
+
+/**
+ * Thrown when a stale order could not be forwarded to order.created.stale in time, the order itself is fine so it is
+ * retried for as long as the broker takes rather than counted towards the dead letter topic
+ */
+public class StaleOrderForwardException extends RetryableException {
+
+    public StaleOrderForwardException(Exception exception) {
+        super(exception);
+    }
+}
@@ -0,0 +1,126 @@
+package dev.lydech.dispatch.filter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import dev.lydech.dispatch.dedup.DispatchedOrderIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Decides from the raw record whether an order.created event is worth binding at all.
+ * Headers are checked first as they cost nothing, then the payload is streamed for just the orderId and item fields,
+ * stopping as soon as both are found, to drop replays of orders already dispatched and excluded items.
+ * Anything this can't make sense of is accepted so the normal deserialization error handling still applies.
+ */
+@Slf4j
+@Component
+public class OrderCreatedFilter {
+
+    public static final String TEST_ORDER_HEADER = "test-order";
+
+    public static final String TENANT_HEADER = "tenant";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final Set<String> tenants;
+
+    private final Set<String> excludedItems;
+
+    private final DispatchedOrderIndex dispatchedOrderIndex;
+
+    private final MeterRegistry meterRegistry;
+
+    public OrderCreatedFilter(MeterRegistry meterRegistry, DispatchedOrderIndex dispatchedOrderIndex,
+                              @Value("${dispatch.filter.tenants:}") List<String> tenants,
+                              @Value("${dispatch.filter.excludedItems:}") List<String> excludedItems) {
+        this.meterRegistry = meterRegistry;
+        this.dispatchedOrderIndex = dispatchedOrderIndex;
+        this.tenants = Set.copyOf(tenants);
+        this.excludedItems = Set.copyOf(excludedItems);
+    }
+
+    public boolean accept(Headers headers, byte[] data) {
+        if ("true".equalsIgnoreCase(headerValue(headers, TEST_ORDER_HEADER))) {
+            return discard("test-order");
+        }
+        String tenant = headerValue(headers, TENANT_HEADER);
+        if (!tenants.isEmpty() && tenant != null && !tenants.contains(tenant)) {
+            return discard("tenant");
+        }
+        if (data == null) {
+            return true;
+        }
+        String[] fields = peekFields(data, "orderId", "item");
+        UUID orderId = parseUuid(fields[0]);
+        if (orderId != null && dispatchedOrderIndex.contains(orderId)) {
+            return discard("replay");
+        }
+        if (fields[1] != null && excludedItems.contains(fields[1])) {
+            return discard("item");
+        }
+        return true;
+    }
+
+    private boolean discard(String reason) {
+        meterRegistry.counter("dispatch.orders.filtered", "reason", reason).increment();
+        return false;
+    }
+
+    /**
+     * Streams the top level of the payload for the given string fields without binding the rest of it,
+     * fields that are missing or not strings come back null
+     */
+    String[] peekFields(byte[] data, String... fields) {
+        List<String> names = List.of(fields);
+        String[] values = new String[fields.length];
+        int remaining = fields.length;
+        try (JsonParser parser = jsonFactory.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return values;
+            }
+            while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                int index = names.indexOf(name);
+                if (index >= 0 && values[index] == null) {
+                    values[index] = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    remaining--;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            log.debug("Unable to peek at fields of record: {}", e.getMessage());
+        }
+        return values;
+    }
+
+    private static UUID parseUuid(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String headerValue(Headers headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        Header header = headers.lastHeader(name);
+        return header == null || header.value() == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
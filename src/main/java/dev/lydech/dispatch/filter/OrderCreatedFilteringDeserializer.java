@@ -0,0 +1,51 @@
+package dev.lydech.dispatch.filter;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+
+/**
+ * Runs the OrderCreatedFilter on order.created records before handing them to the real deserializer.
+ * Discarded records are not bound, they come back with a null value and a marker header so the
+ * listener container's record filter can drop them. Records from any other topic go straight to the delegate.
+ */
+public class OrderCreatedFilteringDeserializer implements Deserializer<Object> {
+
+    public static final String ORDER_CREATED_TOPIC = "order.created";
+
+    public static final String FILTERED_HEADER = "dispatch.filtered";
+
+    private final Deserializer<Object> delegate;
+
+    private final OrderCreatedFilter filter;
+
+    public OrderCreatedFilteringDeserializer(Deserializer<Object> delegate, OrderCreatedFilter filter) {
+        this.delegate = delegate;
+        this.filter = filter;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        delegate.configure(configs, isKey);
+    }
+
+    @Override
+    public Object deserialize(String topic, byte[] data) {
+        return delegate.deserialize(topic, data);
+    }
+
+    @Override
+    public Object deserialize(String topic, Headers headers, byte[] data) {
+        if (ORDER_CREATED_TOPIC.equals(topic) && !filter.accept(headers, data)) {
+            headers.add(FILTERED_HEADER, new byte[0]);
+            return null;
+        }
+        return delegate.deserialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
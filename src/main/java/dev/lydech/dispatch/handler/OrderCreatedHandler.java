@@ -24,10 +24,11 @@ public class OrderCreatedHandler {
     private final DispatchService dispatchService;
 
     @KafkaHandler
-    public void listen(@Header(KafkaHeaders.RECEIVED_PARTITION) Integer partition, @Header(KafkaHeaders.RECEIVED_KEY) String key, @Payload OrderCreated payload) {
+    public void listen(@Header(KafkaHeaders.RECEIVED_PARTITION) Integer partition, @Header(KafkaHeaders.RECEIVED_KEY) String key,
+                       @Header(KafkaHeaders.RECEIVED_TIMESTAMP) Long timestamp, @Payload OrderCreated payload) {
         log.info("Received OrderCreated event: {} from partition: {} with key: {}", payload, partition, key);
         try {
-            dispatchService.process(key, payload);
+            dispatchService.process(key, payload, timestamp);
         } catch (RetryableException e) {
             log.warn("Retryable error processing order: {}", e.getMessage(), e);
             throw e;
@@ -0,0 +1,414 @@
+package dev.lydech.dispatch.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.lydech.dispatch.message.OrderDispatched;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Durable local outbox for OrderDispatched events.
+ * Records are appended to memory-mapped segment files on local disk so the consumer does not have to wait on the
+ * broker, and a scheduled drainer publishes whatever has been appended since its last run in one batch.
+ * A segment is sealed once it is full or older than segmentMaxAgeMs, and deleted once every record in it is acked.
+ * Segment layout is a sequence of [int length][json bytes] entries terminated by a zero length.
+ * The directory belongs to one instance at a time, it is held with an exclusive lock for as long as the outbox is open.
+ */
+@Slf4j
+@Component
+public class OrderDispatchedOutbox implements AutoCloseable {
+
+    public static final String ORDER_DISPATCHED_TOPIC = "order.dispatched";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String ACTIVE_SUFFIX = ".active";
+
+    private static final String LOCK_FILE = "outbox.lock";
+
+    private final KafkaTemplate<String, Object> kafkaProducer;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Path directory;
+
+    private final int segmentBytes;
+
+    private final long segmentMaxAgeMs;
+
+    private final long sendTimeoutMs;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final Object flushLock = new Object();
+
+    private long nextSegmentIndex;
+
+    private Path activeSegment;
+
+    private long activeSegmentIndex;
+
+    private MappedByteBuffer activeBuffer;
+
+    private int activeRecords;
+
+    private long activeOpenedAt;
+
+    private long appendedCount;
+
+    // guarded by flushLock
+    private long durableCount;
+
+    // drainer state, only touched by the drain thread
+    private long drainedSegmentIndex = -1L;
+
+    private int drainedPosition;
+
+    private InFlight inFlight;
+
+    public OrderDispatchedOutbox(KafkaTemplate<String, Object> kafkaProducer,
+                                 @Value("${dispatch.outbox.directory}") String directory,
+                                 @Value("${dispatch.outbox.segmentBytes:1048576}") int segmentBytes,
+                                 @Value("${dispatch.outbox.segmentMaxAgeMs:60000}") long segmentMaxAgeMs,
+                                 @Value("${dispatch.outbox.sendTimeoutMs:10000}") long sendTimeoutMs) throws IOException {
+        this.kafkaProducer = kafkaProducer;
+        this.directory = Files.createDirectories(Path.of(directory));
+        this.segmentBytes = segmentBytes;
+        this.segmentMaxAgeMs = segmentMaxAgeMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        // another instance recovering this directory would seal and drain the segment we are still appending to
+        this.lockChannel = FileChannel.open(this.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = tryLock(lockChannel);
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Outbox directory " + this.directory + " is already in use by another instance");
+        }
+        // segments left over from a previous run are sealed and drained first, new appends go to a fresh segment.
+        // the file is zero filled when mapped so a segment cut short by a crash still ends in a zero length marker
+        for (Path orphan : segments(SEGMENT_SUFFIX + ACTIVE_SUFFIX)) {
+            Files.move(orphan, sealedPath(orphan));
+        }
+        this.nextSegmentIndex = sealedSegments().stream()
+                .mapToLong(OrderDispatchedOutbox::segmentIndex)
+                .max()
+                .orElse(-1L) + 1;
+    }
+
+    /**
+     * Durably stores the event, once this returns the record will be published even if the broker is currently down.
+     * Concurrent appends share a flush, whoever gets to flush first makes every entry written so far durable.
+     */
+    public void append(String key, OrderDispatched orderDispatched) {
+        byte[] entry = serialize(new OutboxEntry(key, orderDispatched));
+        // leave room for the entry length and the trailing zero length marker
+        if (entry.length + 2 * Integer.BYTES > segmentBytes) {
+            throw new IllegalArgumentException("Outbox entry of " + entry.length + " bytes does not fit in a segment of " + segmentBytes + " bytes");
+        }
+        long ticket;
+        synchronized (this) {
+            if (activeBuffer == null || activeBuffer.remaining() < entry.length + 2 * Integer.BYTES) {
+                seal();
+                openSegment();
+            }
+            // the entry goes in first and the length after it, the length is the commit marker. a crash part way
+            // through a flush can leave a length with a torn entry behind it, the reader stops there and nothing
+            // from that flush had been acknowledged to its caller yet
+            int position = activeBuffer.position();
+            activeBuffer.put(position + Integer.BYTES, entry);
+            activeBuffer.putInt(position, entry.length);
+            activeBuffer.position(position + Integer.BYTES + entry.length);
+            activeRecords++;
+            ticket = ++appendedCount;
+        }
+        awaitDurable(ticket);
+    }
+
+    /**
+     * Publishes everything appended since the last run in order, a sealed segment is only deleted once all of its
+     * records have been acked. A failure is retried from the same record on the next run, so delivery is at-least-once.
+     * Sends that are not acked within sendTimeoutMs are left to the producer to finish, nothing further is sent until
+     * they have either been acked or failed so a slow broker does not end up with several copies of the same batch.
+     */
+    @Scheduled(fixedDelayString = "${dispatch.outbox.drainIntervalMs:100}")
+    public void drain() {
+        if (inFlight != null && !awaitInFlight()) {
+            return;
+        }
+        synchronized (this) {
+            if (activeRecords > 0 && System.currentTimeMillis() - activeOpenedAt >= segmentMaxAgeMs) {
+                seal();
+            }
+        }
+        for (Path segment : sealedSegments()) {
+            try {
+                if (!publish(segmentIndex(segment), segment.getFileName().toString(), map(segment))) {
+                    return;
+                }
+                Files.delete(segment);
+            } catch (IOException e) {
+                log.warn("Failed to drain outbox segment: {}, will retry: {}", segment.getFileName(), e.getMessage());
+                return;
+            }
+        }
+        ByteBuffer tail;
+        long segmentIndex;
+        String segmentName;
+        synchronized (this) {
+            if (activeBuffer == null) {
+                return;
+            }
+            // only entries that are completely written, appends carry on past the limit while this publishes
+            tail = activeBuffer.duplicate().limit(activeBuffer.position());
+            segmentIndex = activeSegmentIndex;
+            segmentName = activeSegment.getFileName().toString();
+        }
+        publish(segmentIndex, segmentName, tail);
+    }
+
+    /**
+     * Releases the directory, anything still in the active segment is sealed and drained by the next owner
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!lockChannel.isOpen()) {
+            return;
+        }
+        if (activeBuffer != null) {
+            activeBuffer.force();
+        }
+        lock.release();
+        lockChannel.close();
+    }
+
+    /**
+     * The orderIds of every event still waiting in the outbox, these are dispatched but may not be on the topic yet
+     */
+    public synchronized List<UUID> pendingOrderIds() {
+        List<Path> pending = new ArrayList<>(sealedSegments());
+        if (activeSegment != null) {
+            pending.add(activeSegment);
+        }
+        List<UUID> orderIds = new ArrayList<>();
+        for (Path segment : pending) {
+            try {
+                read(segment).forEach(entry -> orderIds.add(entry.getPayload().getOrderId()));
+            } catch (NoSuchFileException e) {
+                // drained and deleted since it was listed
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return orderIds;
+    }
+
+    /**
+     * Sends every entry of the segment past the drain position, false if they have not all been acked yet
+     */
+    private boolean publish(long segmentIndex, String segmentName, ByteBuffer buffer) {
+        int from = segmentIndex == drainedSegmentIndex ? drainedPosition : 0;
+        Batch batch = read(segmentName, buffer, from);
+        if (batch.entries().isEmpty()) {
+            drainedSegmentIndex = segmentIndex;
+            drainedPosition = batch.end();
+            return true;
+        }
+        List<CompletableFuture<?>> futures = new ArrayList<>(batch.entries().size());
+        for (OutboxEntry entry : batch.entries()) {
+            futures.add(kafkaProducer.send(ORDER_DISPATCHED_TOPIC, entry.getKey(), entry.getPayload()));
+        }
+        inFlight = new InFlight(segmentIndex, segmentName, batch.end(), batch.entries().size(),
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+        return awaitInFlight();
+    }
+
+    /**
+     * Moves the drain position past the in flight batch once it is acked, a failed batch is dropped so it is sent
+     * again from the same position while one that is still pending is kept for the next run
+     */
+    private boolean awaitInFlight() {
+        try {
+            inFlight.future().get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Outbox segment: {} still waiting on acks for {} events, will not resend until they complete", inFlight.segmentName(), inFlight.count());
+            return false;
+        } catch (ExecutionException e) {
+            log.warn("Failed to drain outbox segment: {}, will retry: {}", inFlight.segmentName(), e.getMessage());
+            inFlight = null;
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        drainedSegmentIndex = inFlight.segmentIndex();
+        drainedPosition = inFlight.end();
+        log.info("Published {} OrderDispatched events from outbox segment: {} to topic: {}", inFlight.count(), inFlight.segmentName(), ORDER_DISPATCHED_TOPIC);
+        inFlight = null;
+        return true;
+    }
+
+    /**
+     * Blocks until the entry with the given ticket has been flushed, by this thread or by one that got there first
+     */
+    private void awaitDurable(long ticket) {
+        synchronized (flushLock) {
+            if (durableCount >= ticket) {
+                return;
+            }
+            long flushed;
+            MappedByteBuffer buffer;
+            synchronized (this) {
+                flushed = appendedCount;
+                buffer = activeBuffer;
+            }
+            // entries in segments sealed since were forced by the seal, a null buffer means everything was
+            if (buffer != null) {
+                buffer.force();
+            }
+            durableCount = flushed;
+        }
+    }
+
+    private List<OutboxEntry> read(Path segment) throws IOException {
+        return read(segment.getFileName().toString(), map(segment), 0).entries();
+    }
+
+    private Batch read(String segmentName, ByteBuffer buffer, int from) {
+        List<OutboxEntry> entries = new ArrayList<>();
+        buffer.position(from);
+        int end = from;
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt();
+            if (length == 0) {
+                break;
+            }
+            // a torn or corrupt tail ends the segment, everything before it is still published
+            if (length < 0 || length > buffer.remaining()) {
+                log.warn("Truncated entry in outbox segment: {} after {} entries, ignoring the rest", segmentName, entries.size());
+                break;
+            }
+            byte[] entry = new byte[length];
+            buffer.get(entry);
+            try {
+                entries.add(objectMapper.readValue(entry, OutboxEntry.class));
+            } catch (IOException e) {
+                log.warn("Unreadable entry in outbox segment: {} after {} entries, ignoring the rest: {}", segmentName, entries.size(), e.getMessage());
+                break;
+            }
+            end = buffer.position();
+        }
+        return new Batch(entries, end);
+    }
+
+    private static ByteBuffer map(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void openSegment() {
+        activeSegmentIndex = nextSegmentIndex++;
+        activeSegment = directory.resolve(SEGMENT_PREFIX + String.format("%020d", activeSegmentIndex) + SEGMENT_SUFFIX + ACTIVE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(activeSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            activeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        activeRecords = 0;
+        activeOpenedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Renames the active segment so it is deleted once drained, the rename is what hands it over to the drainer
+     */
+    private void seal() {
+        if (activeBuffer == null) {
+            return;
+        }
+        activeBuffer.force();
+        try {
+            Files.move(activeSegment, sealedPath(activeSegment));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        activeSegment = null;
+        activeBuffer = null;
+        activeRecords = 0;
+    }
+
+    private List<Path> sealedSegments() {
+        return segments(SEGMENT_SUFFIX);
+    }
+
+    private List<Path> segments(String suffix) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix);
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] serialize(OutboxEntry entry) {
+        try {
+            return objectMapper.writeValueAsBytes(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by this JVM
+            return null;
+        }
+    }
+
+    private static Path sealedPath(Path activeSegment) {
+        String name = activeSegment.getFileName().toString();
+        return activeSegment.resolveSibling(name.substring(0, name.length() - ACTIVE_SUFFIX.length()));
+    }
+
+    private static long segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private record Batch(List<OutboxEntry> entries, int end) {
+    }
+
+    private record InFlight(long segmentIndex, String segmentName, int end, int count, CompletableFuture<Void> future) {
+    }
+}
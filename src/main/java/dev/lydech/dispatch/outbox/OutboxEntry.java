@@ -0,0 +1,19 @@
+package dev.lydech.dispatch.outbox;
+
+import dev.lydech.dispatch.message.OrderDispatched;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * What is written to an outbox segment, the record key has to survive alongside the payload
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEntry {
+
+    String key;
+
+    OrderDispatched payload;
+}
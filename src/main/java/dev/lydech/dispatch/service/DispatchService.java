@@ -1,31 +1,91 @@
 package dev.lydech.dispatch.service;
 
 import dev.lydech.dispatch.client.StockServiceClient;
+import dev.lydech.dispatch.dedup.DispatchedOrderIndex;
+import dev.lydech.dispatch.exception.StaleOrderForwardException;
 import dev.lydech.dispatch.message.OrderCreated;
 import dev.lydech.dispatch.message.OrderDispatched;
-import lombok.RequiredArgsConstructor;
+import dev.lydech.dispatch.outbox.OrderDispatchedOutbox;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.util.UUID.randomUUID;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class DispatchService {
 
-    private static final String ORDER_DISPATCHED_TOPIC = "order.dispatched";
+    private static final String ORDER_CREATED_STALE_TOPIC = "order.created.stale";
 
     private static final UUID APPLICATION_ID = randomUUID();
 
+    private final StockServiceClient stockServiceClient;
+
+    private final OrderDispatchedOutbox outbox;
+
     private final KafkaTemplate<String, Object> kafkaProducer;
 
-    private final StockServiceClient stockServiceClient;
+    private final DispatchedOrderIndex dispatchedOrderIndex;
+
+    private final Counter shedCounter;
 
-    public void process(String key, OrderCreated orderCreated) throws Exception {
+    private final Counter duplicateCounter;
+
+    private final long staleOrderDeadlineMs;
+
+    private final long staleOrderSendTimeoutMs;
+
+    private final Map<UUID, CompletableFuture<?>> pendingStaleSends = new ConcurrentHashMap<>();
+
+    public DispatchService(StockServiceClient stockServiceClient, OrderDispatchedOutbox outbox,
+                           KafkaTemplate<String, Object> kafkaProducer, DispatchedOrderIndex dispatchedOrderIndex,
+                           MeterRegistry meterRegistry, @Value("${dispatch.staleOrderDeadlineMs:0}") long staleOrderDeadlineMs,
+                           @Value("${dispatch.staleOrderSendTimeoutMs:1000}") long staleOrderSendTimeoutMs) {
+        this.stockServiceClient = stockServiceClient;
+        this.outbox = outbox;
+        this.kafkaProducer = kafkaProducer;
+        this.dispatchedOrderIndex = dispatchedOrderIndex;
+        this.shedCounter = Counter.builder("dispatch.orders.shed")
+                .description("Orders older than the freshness deadline diverted to " + ORDER_CREATED_STALE_TOPIC)
+                .register(meterRegistry);
+        this.duplicateCounter = Counter.builder("dispatch.orders.duplicate")
+                .description("Redelivered orders skipped because they were already dispatched")
+                .register(meterRegistry);
+        this.staleOrderDeadlineMs = staleOrderDeadlineMs;
+        this.staleOrderSendTimeoutMs = staleOrderSendTimeoutMs;
+    }
+
+    /**
+     * @param timestamp the record timestamp, orders older than the freshness deadline skip the stock check
+     */
+    public void process(String key, OrderCreated orderCreated, long timestamp) throws Exception {
+
+        // redeliveries from rebalances, producer retries and error handler retries would cost a stock call and a duplicate event
+        if (dispatchedOrderIndex.contains(orderCreated.getOrderId())) {
+            duplicateCounter.increment();
+            log.info("Skipping already dispatched orderId: {}", orderCreated.getOrderId());
+            return;
+        }
+
+        // during catch-up spend stock service calls on live orders first, stale ones are handled in batch downstream
+        if (staleOrderDeadlineMs > 0 && System.currentTimeMillis() - timestamp > staleOrderDeadlineMs) {
+            shed(key, orderCreated);
+            shedCounter.increment();
+            log.info("Shed stale orderId: {} to topic: {}", orderCreated.getOrderId(), ORDER_CREATED_STALE_TOPIC);
+            return;
+        }
 
         String availability = stockServiceClient.checkAvailability(orderCreated.getItem());
         if (Boolean.valueOf(availability)) {
@@ -37,11 +97,44 @@ public class DispatchService {
                     .notes("Dispatched" + orderCreated.getItem())
                     .build();
 
-            kafkaProducer.send(ORDER_DISPATCHED_TOPIC, key, orderDispatched).get(); //async which is not good
+            // the outbox publishes in the background so a slow broker does not hold up the consumer or repeat the stock check
+            outbox.append(key, orderDispatched);
+            dispatchedOrderIndex.add(orderCreated.getOrderId());
 
-            log.info("Published OrderDispatched event: {} to topic: {}", orderDispatched, ORDER_DISPATCHED_TOPIC);
+            log.info("Queued OrderDispatched event: {} in outbox for topic: {}", orderDispatched, OrderDispatchedOutbox.ORDER_DISPATCHED_TOPIC);
         } else {
             log.warn("Item: {} is not available in stock for orderId: {}", orderCreated.getItem(), orderCreated.getOrderId());
         }
     }
+
+    /**
+     * The wait is bounded as catch-up is when the broker is most likely to be slow, and a forward that is not acked in
+     * time is retried rather than sending a perfectly good order to the dead letter topic.
+     * A send that timed out carries on in the producer, so the retry waits on that same send instead of adding another
+     * copy and only sends again once it has failed.
+     */
+    private void shed(String key, OrderCreated orderCreated) throws InterruptedException {
+        UUID orderId = orderCreated.getOrderId();
+        CompletableFuture<?> send = pendingStaleSends.get(orderId);
+        if (send == null) {
+            CompletableFuture<?> newSend = kafkaProducer.send(ORDER_CREATED_STALE_TOPIC, key, orderCreated);
+            pendingStaleSends.put(orderId, newSend);
+            // a failure is sent again on the next attempt, even if this record has moved to another instance by then
+            newSend.whenComplete((result, exception) -> {
+                if (exception != null) {
+                    pendingStaleSends.remove(orderId, newSend);
+                }
+            });
+            send = newSend;
+        }
+        try {
+            send.get(staleOrderSendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            pendingStaleSends.remove(orderId, send);
+            throw new StaleOrderForwardException(e);
+        } catch (TimeoutException e) {
+            throw new StaleOrderForwardException(e);
+        }
+        pendingStaleSends.remove(orderId, send);
+    }
 }
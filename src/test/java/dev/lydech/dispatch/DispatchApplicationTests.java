@@ -3,7 +3,7 @@ package dev.lydech.dispatch;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "dispatch.outbox.directory=${java.io.tmpdir}/dispatch-outbox-${random.uuid}")
 class DispatchApplicationTests {
 
     @Test
@@ -0,0 +1,80 @@
+package dev.lydech.dispatch;
+
+import dev.lydech.dispatch.exception.RateLimitedException;
+import dev.lydech.dispatch.exception.RetryableException;
+import dev.lydech.dispatch.exception.StaleOrderForwardException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DispatchConfigurationTest {
+
+    private ConsumerRecordRecoverer recovererMock;
+
+    private Consumer<?, ?> consumerMock;
+
+    private MessageListenerContainer containerMock;
+
+    private DefaultErrorHandler errorHandler;
+
+    @BeforeEach
+    void setUp() {
+        recovererMock = mock(ConsumerRecordRecoverer.class);
+        consumerMock = mock(Consumer.class);
+        containerMock = mock(MessageListenerContainer.class);
+        when(containerMock.isRunning()).thenReturn(true);
+        when(containerMock.getContainerProperties()).thenReturn(new ContainerProperties("order.created"));
+        errorHandler = DispatchConfiguration.errorHandler(recovererMock, 1L, 1L);
+    }
+
+    @Test
+    void errorHandler_RateLimitedNotDeadLettered() {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("order.created", 0, 0L, "key", "value");
+        Exception exception = new ListenerExecutionFailedException("listener failed", new RateLimitedException("rate limit exceeded"));
+        // far more attempts than the FixedBackOff allows, every one is seeked back for another go (signalled by the throw)
+        for (int i = 0; i < 20; i++) {
+            assertThrows(RuntimeException.class, () -> errorHandler.handleRemaining(exception, List.of(record), consumerMock, containerMock));
+        }
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void errorHandler_StaleOrderForwardNotDeadLettered() {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("order.created", 0, 0L, "key", "value");
+        Exception exception = new ListenerExecutionFailedException("listener failed",
+                new StaleOrderForwardException(new TimeoutException("send timed out")));
+        // well past the point a plain RetryableException is recovered
+        for (int i = 0; i < 20; i++) {
+            assertThrows(RuntimeException.class, () -> errorHandler.handleRemaining(exception, List.of(record), consumerMock, containerMock));
+        }
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void errorHandler_RetryableDeadLetteredAfterRetries() {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("order.created", 0, 0L, "key", "value");
+        Exception exception = new ListenerExecutionFailedException("listener failed", new RetryableException("Service unavailable"));
+        for (int i = 0; i < 3; i++) {
+            assertThrows(RuntimeException.class, () -> errorHandler.handleRemaining(exception, List.of(record), consumerMock, containerMock));
+        }
+        errorHandler.handleRemaining(exception, List.of(record), consumerMock, containerMock);
+        verify(recovererMock, times(1)).accept(any(), any());
+    }
+}
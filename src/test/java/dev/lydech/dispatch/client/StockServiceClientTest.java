@@ -16,11 +16,13 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class StockServiceClientTest {
 
     private RestTemplate restTemplateMock;
+    private StockServiceRateLimiter rateLimiterMock;
     private StockServiceClient client;
 
     private static final String STOCK_SERVICE_ENDPOINT = "endpoint";
@@ -29,7 +31,8 @@ public class StockServiceClientTest {
     @BeforeEach
     public void setUp() {
         restTemplateMock = mock(RestTemplate.class);
-        client = new StockServiceClient(restTemplateMock, "endpoint");
+        rateLimiterMock = mock(StockServiceRateLimiter.class);
+        client = new StockServiceClient(restTemplateMock, rateLimiterMock, "endpoint");
     }
 
     @Test
@@ -38,6 +41,14 @@ public class StockServiceClientTest {
         when(restTemplateMock.getForEntity(STOCK_SERVICE_QUERY, String.class)).thenReturn(response);
         assertThat(client.checkAvailability("my-item"), equalTo("true"));
         verify(restTemplateMock, times(1)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+        verify(rateLimiterMock, times(1)).acquire();
+    }
+
+    @Test
+    public void testCheckAvailability_RateLimited() {
+        doThrow(new RetryableException("rate limit exceeded")).when(rateLimiterMock).acquire();
+        assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
+        verifyNoInteractions(restTemplateMock);
     }
 
     @Test
@@ -0,0 +1,61 @@
+package dev.lydech.dispatch.client;
+
+import dev.lydech.dispatch.exception.RateLimitedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StockServiceRateLimiterTest {
+
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void testAcquire_WithinBurst() {
+        StockServiceRateLimiter rateLimiter = new StockServiceRateLimiter(meterRegistry, 1, 3, 0);
+        rateLimiter.acquire();
+        rateLimiter.acquire();
+        rateLimiter.acquire();
+        assertThat(meterRegistry.timer("stock.service.ratelimit.wait").count(), equalTo(3L));
+        assertThat(meterRegistry.counter("stock.service.ratelimit.rejected").count(), equalTo(0.0));
+    }
+
+    @Test
+    public void testAcquire_BurstExhausted() {
+        StockServiceRateLimiter rateLimiter = new StockServiceRateLimiter(meterRegistry, 1, 2, 0);
+        rateLimiter.acquire();
+        rateLimiter.acquire();
+        assertThrows(RateLimitedException.class, rateLimiter::acquire);
+        assertThat(meterRegistry.counter("stock.service.ratelimit.rejected").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testAcquire_WaitsWithinTimeout() {
+        StockServiceRateLimiter rateLimiter = new StockServiceRateLimiter(meterRegistry, 20, 1, 1000);
+        rateLimiter.acquire();
+        rateLimiter.acquire(); // has to wait around 50ms for the next permit
+        assertThat(meterRegistry.timer("stock.service.ratelimit.wait").count(), equalTo(2L));
+        assertThat(meterRegistry.timer("stock.service.ratelimit.wait").totalTime(TimeUnit.MILLISECONDS) > 0, equalTo(true));
+        assertThat(meterRegistry.counter("stock.service.ratelimit.rejected").count(), equalTo(0.0));
+    }
+
+    @Test
+    public void testAcquire_Disabled() {
+        StockServiceRateLimiter rateLimiter = new StockServiceRateLimiter(meterRegistry, 0, 1, 0);
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.acquire();
+        }
+        assertThat(meterRegistry.counter("stock.service.ratelimit.rejected").count(), equalTo(0.0));
+    }
+}
@@ -0,0 +1,73 @@
+package dev.lydech.dispatch.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class DispatchedOrderIndexTest {
+
+    @Test
+    void contains_AddedOrderIds() {
+        DispatchedOrderIndex index = new DispatchedOrderIndex(1000);
+        List<UUID> orderIds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID orderId = randomUUID();
+            orderIds.add(orderId);
+            index.add(orderId);
+        }
+        orderIds.forEach(orderId -> assertThat(index.contains(orderId), equalTo(true)));
+        assertThat(index.contains(randomUUID()), equalTo(false));
+    }
+
+    @Test
+    void contains_NilAndNull() {
+        DispatchedOrderIndex index = new DispatchedOrderIndex(4);
+        UUID nil = new UUID(0L, 0L);
+        assertThat(index.contains(nil), equalTo(false));
+        index.add(nil);
+        index.add(null);
+        assertThat(index.contains(nil), equalTo(true));
+        assertThat(index.contains(null), equalTo(false));
+    }
+
+    @Test
+    void add_OldestGenerationEvicted() {
+        DispatchedOrderIndex index = new DispatchedOrderIndex(2);
+        UUID first = randomUUID();
+        UUID second = randomUUID();
+        UUID third = randomUUID();
+        UUID fourth = randomUUID();
+        UUID fifth = randomUUID();
+        index.add(first);
+        index.add(second);
+        index.add(third); // first generation rotated to previous
+        index.add(fourth);
+        assertThat(index.contains(first), equalTo(true));
+
+        index.add(fifth); // first generation dropped
+        assertThat(index.contains(first), equalTo(false));
+        assertThat(index.contains(second), equalTo(false));
+        assertThat(index.contains(third), equalTo(true));
+        assertThat(index.contains(fourth), equalTo(true));
+        assertThat(index.contains(fifth), equalTo(true));
+    }
+
+    @Test
+    void add_Duplicate() {
+        DispatchedOrderIndex index = new DispatchedOrderIndex(2);
+        UUID first = randomUUID();
+        index.add(first);
+        index.add(first);
+        index.add(first);
+        UUID second = randomUUID();
+        index.add(second);
+        assertThat(index.contains(first), equalTo(true));
+        assertThat(index.contains(second), equalTo(true));
+    }
+}
@@ -0,0 +1,82 @@
+package dev.lydech.dispatch.filter;
+
+import dev.lydech.dispatch.dedup.DispatchedOrderIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+class OrderCreatedFilterTest {
+
+    private static final UUID ORDER_ID = UUID.fromString("9a4f0f2e-2d3c-4f4e-8a0b-1c2d3e4f5a6b");
+
+    private static final byte[] PAYLOAD = ("{\"orderId\":\"" + ORDER_ID + "\",\"item\":\"my-item\"}").getBytes(StandardCharsets.UTF_8);
+
+    private MeterRegistry meterRegistry;
+
+    private DispatchedOrderIndex dispatchedOrderIndex;
+
+    private OrderCreatedFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        dispatchedOrderIndex = new DispatchedOrderIndex(16);
+        filter = new OrderCreatedFilter(meterRegistry, dispatchedOrderIndex, List.of("tenant-a"), List.of("test-item"));
+    }
+
+    @Test
+    void accept_Success() {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(OrderCreatedFilter.TENANT_HEADER, "tenant-a".getBytes(StandardCharsets.UTF_8));
+        assertThat(filter.accept(headers, PAYLOAD), equalTo(true));
+        assertThat(filter.accept(new RecordHeaders(), PAYLOAD), equalTo(true));
+    }
+
+    @Test
+    void accept_TestOrder() {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(OrderCreatedFilter.TEST_ORDER_HEADER, "true".getBytes(StandardCharsets.UTF_8));
+        assertThat(filter.accept(headers, PAYLOAD), equalTo(false));
+        assertThat(meterRegistry.counter("dispatch.orders.filtered", "reason", "test-order").count(), equalTo(1.0));
+    }
+
+    @Test
+    void accept_UnservedTenant() {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(OrderCreatedFilter.TENANT_HEADER, "tenant-b".getBytes(StandardCharsets.UTF_8));
+        assertThat(filter.accept(headers, PAYLOAD), equalTo(false));
+        assertThat(meterRegistry.counter("dispatch.orders.filtered", "reason", "tenant").count(), equalTo(1.0));
+    }
+
+    @Test
+    void accept_ExcludedItem() {
+        byte[] payload = "{\"orderId\":\"9a4f0f2e-2d3c-4f4e-8a0b-1c2d3e4f5a6b\",\"extra\":{\"item\":\"my-item\"},\"item\":\"test-item\"}".getBytes(StandardCharsets.UTF_8);
+        assertThat(filter.accept(new RecordHeaders(), payload), equalTo(false));
+        assertThat(meterRegistry.counter("dispatch.orders.filtered", "reason", "item").count(), equalTo(1.0));
+    }
+
+    @Test
+    void accept_Replay() {
+        dispatchedOrderIndex.add(ORDER_ID);
+        assertThat(filter.accept(new RecordHeaders(), PAYLOAD), equalTo(false));
+        assertThat(meterRegistry.counter("dispatch.orders.filtered", "reason", "replay").count(), equalTo(1.0));
+    }
+
+    @Test
+    void peekFields_MalformedPayload() {
+        String[] fields = filter.peekFields("not json".getBytes(StandardCharsets.UTF_8), "orderId", "item");
+        assertThat(fields[0], nullValue());
+        assertThat(fields[1], nullValue());
+        assertThat(filter.accept(new RecordHeaders(), "not json".getBytes(StandardCharsets.UTF_8)), equalTo(true));
+    }
+}
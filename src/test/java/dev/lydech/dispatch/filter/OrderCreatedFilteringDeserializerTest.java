@@ -0,0 +1,65 @@
+package dev.lydech.dispatch.filter;
+
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderCreatedFilteringDeserializerTest {
+
+    private static final byte[] PAYLOAD = new byte[]{'{', '}'};
+
+    private Deserializer<Object> delegateMock;
+
+    private OrderCreatedFilter filterMock;
+
+    private OrderCreatedFilteringDeserializer deserializer;
+
+    @BeforeEach
+    void setUp() {
+        delegateMock = mock(Deserializer.class);
+        filterMock = mock(OrderCreatedFilter.class);
+        deserializer = new OrderCreatedFilteringDeserializer(delegateMock, filterMock);
+    }
+
+    @Test
+    void deserialize_Accepted() {
+        RecordHeaders headers = new RecordHeaders();
+        Object value = new Object();
+        when(filterMock.accept(headers, PAYLOAD)).thenReturn(true);
+        when(delegateMock.deserialize("order.created", headers, PAYLOAD)).thenReturn(value);
+
+        assertThat(deserializer.deserialize("order.created", headers, PAYLOAD), equalTo(value));
+        assertThat(headers.lastHeader(OrderCreatedFilteringDeserializer.FILTERED_HEADER), nullValue());
+    }
+
+    @Test
+    void deserialize_Discarded() {
+        RecordHeaders headers = new RecordHeaders();
+        when(filterMock.accept(headers, PAYLOAD)).thenReturn(false);
+
+        assertThat(deserializer.deserialize("order.created", headers, PAYLOAD), nullValue());
+        assertThat(headers.lastHeader(OrderCreatedFilteringDeserializer.FILTERED_HEADER), notNullValue());
+        verify(delegateMock, never()).deserialize(any(), any(), any(byte[].class));
+    }
+
+    @Test
+    void deserialize_OtherTopic() {
+        RecordHeaders headers = new RecordHeaders();
+        deserializer.deserialize("order.dispatched", headers, PAYLOAD);
+
+        verify(filterMock, never()).accept(any(), any());
+        verify(delegateMock, times(1)).deserialize("order.dispatched", headers, PAYLOAD);
+    }
+}
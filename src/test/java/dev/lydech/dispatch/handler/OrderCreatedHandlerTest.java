@@ -18,6 +18,8 @@ import static org.mockito.Mockito.*;
 
 class OrderCreatedHandlerTest {
 
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
     private OrderCreatedHandler handler;
 
     private DispatchService dispatchServiceMock;
@@ -33,44 +35,44 @@ class OrderCreatedHandlerTest {
     void listen_Success() throws Exception {
         String key = randomUUID().toString();
         OrderCreated event = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
-        handler.listen(0, key, event);
-        verify(dispatchServiceMock, times(1)).process(key, event);
+        handler.listen(0, key, TIMESTAMP, event);
+        verify(dispatchServiceMock, times(1)).process(key, event, TIMESTAMP);
     }
 
     //    @Test
 //    void listen_ServiceThrowsException() throws Exception {
 //        String key = randomUUID().toString();
 //        OrderCreated event = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
-//        doThrow(new RetryableException("Service error")).when(dispatchServiceMock).process(key, event);
+//        doThrow(new RetryableException("Service error")).when(dispatchServiceMock).process(key, event, TIMESTAMP);
 //
 //        Exception exception = assertThrows(RetryableException.class, () -> {
-//            handler.listen(0, key, event);
+//            handler.listen(0, key, TIMESTAMP, event);
 //        });
 //
 //        //assertThat(exception.getMessage(), equalTo("java.lang.RuntimeException: Service error"));
 //
-//        handler.listen(0, key, event);
-//        verify(dispatchServiceMock, times(1)).process(key, event);
+//        handler.listen(0, key, TIMESTAMP, event);
+//        verify(dispatchServiceMock, times(1)).process(key, event, TIMESTAMP);
 //    }
     @Test
     public void listen_ServiceThrowsException() throws Exception {
         String key = randomUUID().toString();
         OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
-        doThrow(new RuntimeException("Service failure")).when(dispatchServiceMock).process(key, testEvent);
+        doThrow(new RuntimeException("Service failure")).when(dispatchServiceMock).process(key, testEvent, TIMESTAMP);
 
-        Exception exception = assertThrows(NotRetryableException.class, () -> handler.listen(0, key, testEvent));
+        Exception exception = assertThrows(NotRetryableException.class, () -> handler.listen(0, key, TIMESTAMP, testEvent));
         assertThat(exception.getMessage(), equalTo("java.lang.RuntimeException: Service failure"));
-        verify(dispatchServiceMock, times(1)).process(key, testEvent);
+        verify(dispatchServiceMock, times(1)).process(key, testEvent, TIMESTAMP);
     }
 
     @Test
     public void testListen_ServiceThrowsRetryableException() throws Exception {
         String key = randomUUID().toString();
         OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
-        doThrow(new RetryableException("Service failure")).when(dispatchServiceMock).process(key, testEvent);
+        doThrow(new RetryableException("Service failure")).when(dispatchServiceMock).process(key, testEvent, TIMESTAMP);
 
-        Exception exception = assertThrows(RuntimeException.class, () -> handler.listen(0, key, testEvent));
+        Exception exception = assertThrows(RuntimeException.class, () -> handler.listen(0, key, TIMESTAMP, testEvent));
         assertThat(exception.getMessage(), equalTo("Service failure"));
-        verify(dispatchServiceMock, times(1)).process(key, testEvent);
+        verify(dispatchServiceMock, times(1)).process(key, testEvent, TIMESTAMP);
     }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package dev.lydech.dispatch.integration;
+
+import dev.lydech.dispatch.DispatchConfiguration;
+import dev.lydech.dispatch.dedup.DispatchedOrderIndex;
+import dev.lydech.dispatch.message.OrderCreated;
+import dev.lydech.dispatch.message.OrderDispatched;
+import dev.lydech.dispatch.util.TestEventData;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static dev.lydech.dispatch.integration.WiremockUtils.stubWiremock;
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * The broker is started and an OrderDispatched published before the application context exists, so the
+ * dispatched order index can only know about it from its rebuild of order.dispatched.
+ */
+@SpringBootTest(classes = {DispatchConfiguration.class})
+@AutoConfigureWireMock(port = 0) //will use random unused port at runtime
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+public class DispatchedOrderIndexIntegrationTest {
+
+    private final static String ORDER_CREATED_TOPIC = "order.created";
+    private final static String ORDER_DISPATCHED_TOPIC = "order.dispatched";
+
+    private static final UUID DISPATCHED_ORDER_ID = randomUUID();
+
+    private static final String KEY = randomUUID().toString();
+
+    private static final EmbeddedKafkaBroker embeddedKafkaBroker = new EmbeddedKafkaKraftBroker(1, 1,
+            ORDER_CREATED_TOPIC, ORDER_DISPATCHED_TOPIC, "order.created.DLT", "order.created.stale");
+
+    static {
+        embeddedKafkaBroker.afterPropertiesSet();
+        KafkaTemplate<String, Object> producer = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, embeddedKafkaBroker.getBrokersAsString(),
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class,
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class)));
+        try {
+            producer.send(ORDER_DISPATCHED_TOPIC, KEY, OrderDispatched.builder()
+                    .orderId(DISPATCHED_ORDER_ID)
+                    .processedById(randomUUID())
+                    .notes("Dispatched by another instance")
+                    .build()).get();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            producer.destroy();
+        }
+    }
+
+    @DynamicPropertySource
+    static void kafkaProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.embedded.kafka.brokers", embeddedKafkaBroker::getBrokersAsString);
+        registry.add("kafka.bootstrap-servers", embeddedKafkaBroker::getBrokersAsString);
+    }
+
+    @AfterAll
+    static void stopBroker() {
+        embeddedKafkaBroker.destroy();
+    }
+
+    @Autowired
+    private KafkaTemplate kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private DispatchedOrderIndex dispatchedOrderIndex;
+
+    @BeforeEach
+    public void setUp() {
+        WiremockUtils.reset();
+
+        registry.getListenerContainers().stream()
+                .forEach(container -> ContainerTestUtils.waitForAssignment(container,
+                        container.getContainerProperties().getTopics().length * embeddedKafkaBroker.getPartitionsPerTopic()));
+    }
+
+    /**
+     * The already dispatched order is sent ahead of a fresh one on the same partition, once the fresh one has reached
+     * the stock service the duplicate must have been skipped without a stock call.
+     */
+    @Test
+    public void testPreviouslyDispatchedOrderSkipped() throws Exception {
+        assertThat(dispatchedOrderIndex.contains(DISPATCHED_ORDER_ID), equalTo(true));
+        stubWiremock("/api/stock?item=duplicate-item", 200, "true");
+        stubWiremock("/api/stock?item=fresh-item", 200, "true");
+
+        OrderCreated duplicate = TestEventData.buildOrderCreatedEvent(DISPATCHED_ORDER_ID, "duplicate-item");
+        kafkaTemplate.send(ORDER_CREATED_TOPIC, KEY, duplicate).get();
+        OrderCreated fresh = TestEventData.buildOrderCreatedEvent(randomUUID(), "fresh-item");
+        kafkaTemplate.send(ORDER_CREATED_TOPIC, KEY, fresh).get();
+
+        await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> findAll(getRequestedFor(urlEqualTo("/api/stock?item=fresh-item"))).size(), equalTo(1));
+        assertThat(findAll(getRequestedFor(urlEqualTo("/api/stock?item=duplicate-item"))).size(), equalTo(0));
+    }
+
+    /**
+     * Dispatches from other instances published after startup are picked up by the loader, which keeps tailing the topic.
+     */
+    @Test
+    public void testLaterDispatchFromOtherInstanceIndexed() throws Exception {
+        UUID orderId = randomUUID();
+        kafkaTemplate.send(ORDER_DISPATCHED_TOPIC, KEY, OrderDispatched.builder()
+                .orderId(orderId)
+                .processedById(randomUUID())
+                .notes("Dispatched by another instance")
+                .build()).get();
+
+        await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> dispatchedOrderIndex.contains(orderId), equalTo(true));
+    }
+}
@@ -0,0 +1,239 @@
+package dev.lydech.dispatch.outbox;
+
+import dev.lydech.dispatch.message.OrderDispatched;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class OrderDispatchedOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    private KafkaTemplate kafkaProducerMock;
+
+    private OrderDispatchedOutbox outbox;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        kafkaProducerMock = mock(KafkaTemplate.class);
+        outbox = new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 60_000L, 100L);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        outbox.close();
+    }
+
+    @Test
+    void drain_Success() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        OrderDispatched event = buildOrderDispatchedEvent();
+        outbox.append("key", event);
+
+        outbox.drain();
+        outbox.drain();
+
+        // the active segment is kept for further appends, what has been drained from it is not sent again
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq("key"), eq(event));
+        assertThat(sealedSegmentCount(), equalTo(0L));
+        assertThat(segmentCount(), equalTo(1L));
+    }
+
+    @Test
+    void drain_RollsFullSegments() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        for (int i = 0; i < 20; i++) {
+            outbox.append("key", buildOrderDispatchedEvent());
+        }
+        assertThat(sealedSegmentCount() > 0, equalTo(true));
+
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(20)).send(eq("order.dispatched"), eq("key"), any(OrderDispatched.class));
+        assertThat(sealedSegmentCount(), equalTo(0L));
+        assertThat(segmentCount(), equalTo(1L));
+    }
+
+    @Test
+    void drain_SealsSegmentsPastMaxAge() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        outbox.close();
+        outbox = new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 0L, 100L);
+        outbox.append("key", buildOrderDispatchedEvent());
+
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq("key"), any(OrderDispatched.class));
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    @Test
+    void drain_ProducerFailsRetriesFromSameEntry() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class)))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("Kafka error")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        OrderDispatched event = buildOrderDispatchedEvent();
+        outbox.append("key", event);
+
+        outbox.drain();
+        outbox.drain();
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(2)).send(eq("order.dispatched"), eq("key"), eq(event));
+    }
+
+    @Test
+    void drain_SendStillPendingNotRepublished() throws Exception {
+        CompletableFuture pending = new CompletableFuture<>();
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(pending);
+        OrderDispatched event = buildOrderDispatchedEvent();
+        outbox.append("key", event);
+
+        // the send outlives the drain timeout on both runs
+        outbox.drain();
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq("key"), eq(event));
+
+        pending.complete(null);
+        reset(kafkaProducerMock);
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        OrderDispatched next = buildOrderDispatchedEvent();
+        outbox.append("key", next);
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq("key"), eq(next));
+        verify(kafkaProducerMock, times(0)).send(eq("order.dispatched"), eq("key"), eq(event));
+    }
+
+    @Test
+    void drain_RecoversSegmentsFromPreviousRun() throws Exception {
+        OrderDispatched event = buildOrderDispatchedEvent();
+        outbox.append("key", event);
+        verifyNoInteractions(kafkaProducerMock);
+        outbox.close();
+
+        KafkaTemplate restartedProducerMock = mock(KafkaTemplate.class);
+        when(restartedProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        OrderDispatchedOutbox restarted = new OrderDispatchedOutbox(restartedProducerMock, directory.toString(), 1024, 60_000L, 100L);
+        restarted.drain();
+
+        verify(restartedProducerMock, times(1)).send(eq("order.dispatched"), eq("key"), eq(event));
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    @Test
+    void drain_TornLastEntry() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        outbox.append("key", buildOrderDispatchedEvent());
+        outbox.append("key", buildOrderDispatchedEvent());
+        outbox.close();
+        // a length that was written without its entry, the segment is zero filled behind it
+        tearLastEntry(200);
+
+        outbox = new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 60_000L, 100L);
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(2)).send(eq("order.dispatched"), eq("key"), any(OrderDispatched.class));
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    @Test
+    void drain_EntryPastEndOfSegment() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.completedFuture(null));
+        outbox.append("key", buildOrderDispatchedEvent());
+        outbox.close();
+        tearLastEntry(4096);
+
+        outbox = new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 60_000L, 100L);
+        outbox.drain();
+
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq("key"), any(OrderDispatched.class));
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    @Test
+    void pendingOrderIds_SealedAndActiveSegments() throws Exception {
+        OrderDispatched sealed = buildOrderDispatchedEvent();
+        outbox.append("key", sealed);
+        outbox.close();
+        outbox = new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 60_000L, 100L);
+        OrderDispatched active = buildOrderDispatchedEvent();
+        outbox.append("key", active);
+
+        assertThat(outbox.pendingOrderIds(), equalTo(List.of(sealed.getOrderId(), active.getOrderId())));
+    }
+
+    @Test
+    void create_DirectoryInUse() throws Exception {
+        assertThrows(IllegalStateException.class, () -> new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 60_000L, 100L));
+
+        outbox.close();
+        new OrderDispatchedOutbox(kafkaProducerMock, directory.toString(), 1024, 60_000L, 100L).close();
+    }
+
+    /**
+     * Writes a length with no entry behind it after the last entry of the first segment, as a crash mid append would
+     */
+    private void tearLastEntry(int length) throws Exception {
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.getFileName().toString().startsWith("segment-")).findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int position = 0;
+            for (int entryLength = buffer.getInt(0); entryLength != 0; entryLength = buffer.getInt(position)) {
+                position += Integer.BYTES + entryLength;
+            }
+            buffer.putInt(position, length);
+            buffer.force();
+        }
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+
+    private long sealedSegmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-") && path.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private static OrderDispatched buildOrderDispatchedEvent() {
+        return OrderDispatched.builder()
+                .orderId(UUID.randomUUID())
+                .processedById(UUID.randomUUID())
+                .notes("Dispatched my-item")
+                .build();
+    }
+}
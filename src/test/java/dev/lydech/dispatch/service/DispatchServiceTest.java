@@ -1,9 +1,14 @@
 package dev.lydech.dispatch.service;
 
 import dev.lydech.dispatch.client.StockServiceClient;
+import dev.lydech.dispatch.dedup.DispatchedOrderIndex;
+import dev.lydech.dispatch.exception.StaleOrderForwardException;
 import dev.lydech.dispatch.message.OrderCreated;
 import dev.lydech.dispatch.message.OrderDispatched;
+import dev.lydech.dispatch.outbox.OrderDispatchedOutbox;
 import dev.lydech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.kafka.core.KafkaTemplate;
@@ -20,53 +25,125 @@ import static org.mockito.Mockito.*;
 
 class DispatchServiceTest {
 
+    private static final long STALE_ORDER_DEADLINE_MS = 60_000L;
+
     private DispatchService service;
 
-    private KafkaTemplate kafkaProducerMock;
+    private OrderDispatchedOutbox outboxMock;
 
     private StockServiceClient stockServiceClientMock;
 
+    private KafkaTemplate kafkaProducerMock;
+
+    private DispatchedOrderIndex dispatchedOrderIndex;
+
+    private MeterRegistry meterRegistry;
+
     @BeforeEach
     void setUp() {
-        kafkaProducerMock = mock(KafkaTemplate.class);
+        outboxMock = mock(OrderDispatchedOutbox.class);
         stockServiceClientMock = mock(StockServiceClient.class);
-        service = new DispatchService(kafkaProducerMock, stockServiceClientMock);
+        kafkaProducerMock = mock(KafkaTemplate.class);
+        dispatchedOrderIndex = new DispatchedOrderIndex(16);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new DispatchService(stockServiceClientMock, outboxMock, kafkaProducerMock, dispatchedOrderIndex, meterRegistry, STALE_ORDER_DEADLINE_MS, 100L);
 
     }
 
     @Test
     void process_Success() throws Exception {
         String key = UUID.randomUUID().toString();
-        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(mock(CompletableFuture.class));
         when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("true");
 
         OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
-        service.process(key, event);
-        verify(kafkaProducerMock, times(1)).send(eq(
-                "order.dispatched"
-        ), eq(key), any(OrderDispatched.class));
+        service.process(key, event, System.currentTimeMillis());
+        verify(outboxMock, times(1)).append(eq(key), any(OrderDispatched.class));
         verify(stockServiceClientMock, times(1)).checkAvailability(eq(event.getItem()));
     }
 
     @Test
-    void process_ProducerThrowsException() throws Exception {
+    void process_DuplicateSkipped() throws Exception {
+        String key = UUID.randomUUID().toString();
+        when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("true");
+
+        OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
+        service.process(key, event, System.currentTimeMillis());
+        service.process(key, event, System.currentTimeMillis());
+        verify(outboxMock, times(1)).append(eq(key), any(OrderDispatched.class));
+        verify(stockServiceClientMock, times(1)).checkAvailability(eq(event.getItem()));
+        assertThat(meterRegistry.counter("dispatch.orders.duplicate").count(), equalTo(1.0));
+    }
+
+    @Test
+    void process_NotAvailable() throws Exception {
+        String key = UUID.randomUUID().toString();
+        when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("false");
+
+        OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
+        service.process(key, event, System.currentTimeMillis());
+        verifyNoInteractions(outboxMock);
+        verify(stockServiceClientMock, times(1)).checkAvailability(eq(event.getItem()));
+    }
+
+    @Test
+    void process_StaleOrderShed() throws Exception {
+        String key = UUID.randomUUID().toString();
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderCreated.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
+        service.process(key, event, System.currentTimeMillis() - STALE_ORDER_DEADLINE_MS - 1000L);
+        verify(kafkaProducerMock, times(1)).send(eq("order.created.stale"), eq(key), eq(event));
+        verifyNoInteractions(stockServiceClientMock, outboxMock);
+        assertThat(meterRegistry.counter("dispatch.orders.shed").count(), equalTo(1.0));
+    }
+
+    @Test
+    void process_StaleOrderSendFails() throws Exception {
+        String key = UUID.randomUUID().toString();
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderCreated.class))).thenReturn(CompletableFuture.failedFuture(new RuntimeException("Kafka error")));
+
+        OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
+        assertThrows(StaleOrderForwardException.class, () -> service.process(key, event, System.currentTimeMillis() - STALE_ORDER_DEADLINE_MS - 1000L));
+        // a failed send is sent again on retry
+        assertThrows(StaleOrderForwardException.class, () -> service.process(key, event, System.currentTimeMillis() - STALE_ORDER_DEADLINE_MS - 1000L));
+        verify(kafkaProducerMock, times(2)).send(eq("order.created.stale"), eq(key), eq(event));
+        verifyNoInteractions(stockServiceClientMock, outboxMock);
+        assertThat(meterRegistry.counter("dispatch.orders.shed").count(), equalTo(0.0));
+    }
+
+    @Test
+    void process_StaleOrderSendTimesOut() throws Exception {
+        String key = UUID.randomUUID().toString();
+        CompletableFuture pending = new CompletableFuture<>();
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderCreated.class))).thenReturn(pending);
+
+        OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
+        long timestamp = System.currentTimeMillis() - STALE_ORDER_DEADLINE_MS - 1000L;
+        assertThrows(StaleOrderForwardException.class, () -> service.process(key, event, timestamp));
+        assertThrows(StaleOrderForwardException.class, () -> service.process(key, event, timestamp));
+
+        // the retries wait on the send still in the producer rather than adding copies of it
+        pending.complete(null);
+        service.process(key, event, timestamp);
+        verify(kafkaProducerMock, times(1)).send(eq("order.created.stale"), eq(key), eq(event));
+        assertThat(meterRegistry.counter("dispatch.orders.shed").count(), equalTo(1.0));
+    }
+
+    @Test
+    void process_OutboxThrowsException() throws Exception {
         String key = UUID.randomUUID().toString();
         OrderCreated event = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), UUID.randomUUID().toString());
         when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("true");
-        doThrow(new RuntimeException("Kafka error")).when(kafkaProducerMock).send(eq(
-                "order.dispatched"
-        ), eq(key), any(OrderDispatched.class));
+        doThrow(new RuntimeException("Outbox error")).when(outboxMock).append(eq(key), any(OrderDispatched.class));
 
         Exception exception = assertThrows(RuntimeException.class, () -> {
-            service.process(key, event);
+            service.process(key, event, System.currentTimeMillis());
         });
 
 
-        verify(kafkaProducerMock, times(1)).send(eq(
-                "order.dispatched"
-        ), eq(key), any(OrderDispatched.class));
+        verify(outboxMock, times(1)).append(eq(key), any(OrderDispatched.class));
 
-        assertThat(exception.getMessage(), equalTo("Kafka error"
+        assertThat(exception.getMessage(), equalTo("Outbox error"
         ));
 
         verify(stockServiceClientMock, times(1)).checkAvailability(eq(event.getItem()));